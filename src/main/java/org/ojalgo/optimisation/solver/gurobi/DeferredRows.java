@@ -0,0 +1,290 @@
+/*
+ * Copyright 1997-2021 Optimatika
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.ojalgo.optimisation.solver.gurobi;
+
+import static org.ojalgo.function.constant.PrimitiveMath.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.ojalgo.optimisation.Expression;
+import org.ojalgo.optimisation.ExpressionsBasedModel;
+import org.ojalgo.structure.Structure1D.IntIndex;
+
+import gurobi.GRB;
+import gurobi.GRBCallback;
+import gurobi.GRBConstr;
+import gurobi.GRBException;
+import gurobi.GRBLinExpr;
+import gurobi.GRBModel;
+import gurobi.GRBVar;
+
+/**
+ * Linear constraint rows held back from the {@link gurobi.GRBModel}, stored row-wise (compressed sparse
+ * row) in primitive arrays. Rows are only handed over to Gurobi once a candidate solution violates them.
+ * <p>
+ * A row is "materialised" the first time it is found violated (that is what the statistics count), and
+ * "modelled" once it has been permanently added to the model. Rows added as lazy constraints from a
+ * callback only last for that one optimisation, and are therefore never considered modelled – they are
+ * checked again with every later candidate solution.
+ * <p>
+ * No reference to the originating {@link Expression} is kept – only its name.
+ */
+final class DeferredRows {
+
+    private static final int[] NONE = new int[0];
+
+    private static void addTo(final GRBModel model, final GRBLinExpr expr, final char sense, final double rhs, final String name,
+            final List<String> names, final int lazy) throws GRBException {
+        final GRBConstr constraint = model.addConstr(expr, sense, rhs, name);
+        if (lazy != 0) {
+            constraint.set(GRB.IntAttr.Lazy, lazy);
+        }
+        if (names != null) {
+            names.add(name);
+        }
+    }
+
+    private double[] myFactors = new double[64];
+    private int[] myIndices = new int[64];
+    private double[] myLower = new double[16];
+    private boolean[] myMaterialised = new boolean[16];
+    private int myMaterialisedCount = 0;
+    private boolean[] myModelled = new boolean[16];
+    private String[] myNames = new String[16];
+    private int myRowCount = 0;
+    private int[] myStart = new int[17];
+    private double[] myUpper = new double[16];
+
+    DeferredRows() {
+        super();
+    }
+
+    /**
+     * @param expression Linear constraint, already compensated for fixed variables
+     * @param model To map model variable indices to free variable indices
+     */
+    void add(final Expression expression, final ExpressionsBasedModel model) {
+
+        if (myRowCount == myLower.length) {
+            final int capacity = myRowCount * 2;
+            myLower = Arrays.copyOf(myLower, capacity);
+            myUpper = Arrays.copyOf(myUpper, capacity);
+            myMaterialised = Arrays.copyOf(myMaterialised, capacity);
+            myModelled = Arrays.copyOf(myModelled, capacity);
+            myNames = Arrays.copyOf(myNames, capacity);
+            myStart = Arrays.copyOf(myStart, capacity + 1);
+        }
+
+        int nnz = myStart[myRowCount];
+
+        for (final IntIndex key : expression.getLinearKeySet()) {
+            final int freeInd = model.indexOfFreeVariable(key.index);
+            if (freeInd >= 0) {
+                if (nnz == myIndices.length) {
+                    myIndices = Arrays.copyOf(myIndices, nnz * 2);
+                    myFactors = Arrays.copyOf(myFactors, nnz * 2);
+                }
+                myIndices[nnz] = freeInd;
+                myFactors[nnz] = expression.getAdjustedLinearFactor(key);
+                nnz++;
+            }
+        }
+
+        myLower[myRowCount] = expression.isLowerConstraint() || expression.isEqualityConstraint() ? expression.getAdjustedLowerLimit() : NEGATIVE_INFINITY;
+        myUpper[myRowCount] = expression.isUpperConstraint() || expression.isEqualityConstraint() ? expression.getAdjustedUpperLimit() : POSITIVE_INFINITY;
+        myNames[myRowCount] = expression.getName();
+
+        myRowCount++;
+        myStart[myRowCount] = nnz;
+    }
+
+    /**
+     * Adds the row to the model, as one (equality) or two (range) linear constraints.
+     *
+     * @param names Receives the row name once for every constraint added (may be null)
+     * @param lazy Value for the Lazy attribute of the constraints, 0 for ordinary constraints
+     */
+    void addTo(final GRBModel model, final GRBVar[] vars, final int row, final List<String> names, final int lazy) throws GRBException {
+
+        final GRBLinExpr expr = this.toExpression(row, vars);
+        final double lower = myLower[row];
+        final double upper = myUpper[row];
+
+        if (lower == upper) {
+            DeferredRows.addTo(model, expr, GRB.EQUAL, lower, myNames[row], names, lazy);
+        } else {
+            if (lower > NEGATIVE_INFINITY) {
+                DeferredRows.addTo(model, expr, GRB.GREATER_EQUAL, lower, myNames[row], names, lazy);
+            }
+            if (upper < POSITIVE_INFINITY) {
+                DeferredRows.addTo(model, expr, GRB.LESS_EQUAL, upper, myNames[row], names, lazy);
+            }
+        }
+    }
+
+    int count() {
+        return myRowCount;
+    }
+
+    int countMaterialised() {
+        return myMaterialisedCount;
+    }
+
+    void fingerprint(final SolverGurobi.Fingerprint fingerprint) {
+        fingerprint.add((long) myRowCount);
+        for (int row = 0; row < myRowCount; row++) {
+            fingerprint.add(myNames[row]).add(myLower[row]).add(myUpper[row]);
+            fingerprint.add((long) (myStart[row + 1] - myStart[row]));
+            for (int i = myStart[row], limit = myStart[row + 1]; i < limit; i++) {
+                fingerprint.add((long) myIndices[i]).add(myFactors[i]);
+            }
+        }
+    }
+
+    String getName(final int row) {
+        return myNames[row];
+    }
+
+    /**
+     * @return The indices of the rows that have been found violated, but are not (yet) modelled – rows
+     *         only ever added as lazy constraints from the callback
+     */
+    int[] materialisedUnmodelled() {
+
+        final int[] retVal = new int[myRowCount];
+        int count = 0;
+
+        for (int row = 0; row < myRowCount; row++) {
+            if (myMaterialised[row] && !myModelled[row]) {
+                retVal[count++] = row;
+            }
+        }
+
+        return Arrays.copyOf(retVal, count);
+    }
+
+    /**
+     * For MIP:s – separates the deferred rows at every new incumbent and adds the violated ones as lazy
+     * constraints. Requires the LazyConstraints parameter to be set.
+     */
+    GRBCallback newCallback(final GRBVar[] vars, final double tolerance) {
+        return new GRBCallback() {
+
+            @Override
+            protected void callback() {
+                try {
+                    if (where == GRB.CB_MIPSOL) {
+                        final double[] x = this.getSolution(vars);
+                        for (final int row : DeferredRows.this.separate(x, tolerance)) {
+                            final GRBLinExpr expr = DeferredRows.this.toExpression(row, vars);
+                            final double lower = myLower[row];
+                            final double upper = myUpper[row];
+                            if (lower == upper) {
+                                this.addLazy(expr, GRB.EQUAL, lower);
+                            } else {
+                                if (lower > NEGATIVE_INFINITY) {
+                                    this.addLazy(expr, GRB.GREATER_EQUAL, lower);
+                                }
+                                if (upper < POSITIVE_INFINITY) {
+                                    this.addLazy(expr, GRB.LESS_EQUAL, upper);
+                                }
+                            }
+                        }
+                    }
+                } catch (final GRBException exception) {
+                    exception.printStackTrace();
+                }
+            }
+
+        };
+    }
+
+    /**
+     * Finds the rows, not already modelled, that the solution violates.
+     *
+     * @return The indices of the violated rows
+     */
+    int[] separate(final double[] solution, final double tolerance) {
+
+        int[] retVal = NONE;
+        int count = 0;
+
+        for (int row = 0; row < myRowCount; row++) {
+            if (!myModelled[row]) {
+
+                double activity = ZERO;
+                for (int i = myStart[row], limit = myStart[row + 1]; i < limit; i++) {
+                    activity += myFactors[i] * solution[myIndices[i]];
+                }
+
+                if ((activity < (myLower[row] - tolerance)) || (activity > (myUpper[row] + tolerance))) {
+                    if (count == retVal.length) {
+                        retVal = Arrays.copyOf(retVal, Math.max(8, count * 2));
+                    }
+                    retVal[count++] = row;
+                    this.materialise(row);
+                }
+            }
+        }
+
+        return count == retVal.length ? retVal : Arrays.copyOf(retVal, count);
+    }
+
+    void setModelled(final int row) {
+        this.materialise(row);
+        myModelled[row] = true;
+    }
+
+    GRBLinExpr toExpression(final int row, final GRBVar[] vars) {
+        final GRBLinExpr retVal = new GRBLinExpr();
+        for (int i = myStart[row], limit = myStart[row + 1]; i < limit; i++) {
+            retVal.addTerm(myFactors[i], vars[myIndices[i]]);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return The indices of all rows not yet modelled, regardless of whether they are violated or not
+     */
+    int[] unmodelled() {
+
+        final int[] retVal = new int[myRowCount];
+        int count = 0;
+
+        for (int row = 0; row < myRowCount; row++) {
+            if (!myModelled[row]) {
+                retVal[count++] = row;
+            }
+        }
+
+        return Arrays.copyOf(retVal, count);
+    }
+
+    private void materialise(final int row) {
+        if (!myMaterialised[row]) {
+            myMaterialised[row] = true;
+            myMaterialisedCount++;
+        }
+    }
+
+}
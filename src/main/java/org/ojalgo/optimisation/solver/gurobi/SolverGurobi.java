@@ -23,10 +23,33 @@ package org.ojalgo.optimisation.solver.gurobi;
 
 import static org.ojalgo.function.constant.PrimitiveMath.*;
 
+import java.io.File;
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import org.ojalgo.array.Primitive64Array;
@@ -38,16 +61,230 @@ import org.ojalgo.structure.Structure1D.IntIndex;
 import org.ojalgo.structure.Structure2D.IntRowColumn;
 
 import gurobi.GRB;
+import gurobi.GRBConstr;
 import gurobi.GRBEnv;
 import gurobi.GRBException;
 import gurobi.GRBExpr;
 import gurobi.GRBLinExpr;
 import gurobi.GRBModel;
+import gurobi.GRBQConstr;
 import gurobi.GRBQuadExpr;
 import gurobi.GRBVar;
 
 public final class SolverGurobi implements Optimisation.Solver {
 
+    /**
+     * Captures solves to native Gurobi files, for offline profiling and tuning against real data. A bundle
+     * is a compressed model file (.mps.gz), the parameters actually applied (.prm) and, when the solve used
+     * one, the MIP start (.mst) – all sharing the same base path.
+     * <p>
+     * A solve is captured if it is randomly sampled, or if it took longer than the slow-solve threshold. The
+     * model is copied (in memory) on the solving thread, but the files are written by a single background
+     * thread. If that thread falls behind, or copying the model fails, the capture is dropped – capturing
+     * never fails a solve. {@link #close()} waits for already queued bundles to be written.
+     * <p>
+     * Memory: every pending capture holds a full copy of the Gurobi model, and the slow-solve trigger tends
+     * to pick the largest models. At most 2 copies (one being written and one waiting) exist at any time –
+     * when both are taken, further captures are dropped before anything is copied.
+     * <p>
+     * With a Capture configured, a feasible kick-starter is applied as the MIP start of the solve (and
+     * written as the .mst of its bundle). Without one, the kick-starter is ignored as before.
+     * <p>
+     * With deferred rows (see {@link Lazy}) the ones not already in the model are added to the copy as
+     * constraints with the Lazy attribute set – on the writer thread – so that the .mps.gz describes the same
+     * problem that was solved.
+     */
+    public static final class Capture implements AutoCloseable {
+
+        public static final class Replay {
+
+            private final Result myResult;
+            private final double myRuntime;
+
+            Replay(final Result result, final double runtime) {
+                super();
+                myResult = result;
+                myRuntime = runtime;
+            }
+
+            public Result getResult() {
+                return myResult;
+            }
+
+            /**
+             * @return Gurobi's own measure of the solve time, in seconds
+             */
+            public double getRuntime() {
+                return myRuntime;
+            }
+
+            @Override
+            public String toString() {
+                return "Replay [runtime=" + myRuntime + ", result=" + myResult + "]";
+            }
+
+        }
+
+        private static final int MAX_COPIES = 2;
+
+        /**
+         * Load a captured bundle and re-run it, in the default environment.
+         *
+         * @param bundle The base path of the bundle – without file extensions
+         * @param configurator Applied after the captured parameters, to try alternatives (may be null)
+         */
+        public static Replay replay(final String bundle, final Configurator configurator) {
+            return Capture.replay(INTEGRATION, bundle, configurator);
+        }
+
+        public static Replay replay(final SolverGurobi.Integration integration, final String bundle, final Configurator configurator) {
+
+            final GRBEnv environment = integration.getEnvironment();
+
+            GRBModel model = null;
+            try {
+
+                model = new GRBModel(environment, bundle + ".mps.gz");
+
+                if (new File(bundle + ".prm").exists()) {
+                    model.read(bundle + ".prm");
+                }
+                if (new File(bundle + ".mst").exists()) {
+                    model.read(bundle + ".mst");
+                }
+
+                if (configurator != null) {
+                    configurator.configure(environment, model, new Optimisation.Options());
+                }
+
+                model.optimize();
+
+                final State state = SolverGurobi.translate(model.get(GRB.IntAttr.Status));
+                final GRBVar[] vars = model.getVars();
+
+                double value = NaN;
+                final Primitive64Array solution = Primitive64Array.make(vars.length);
+
+                if (state.isFeasible()) {
+                    value = model.get(GRB.DoubleAttr.ObjVal);
+                    final double[] x = model.get(GRB.DoubleAttr.X, vars);
+                    for (int i = 0; i < x.length; i++) {
+                        solution.set(i, x[i]);
+                    }
+                }
+
+                return new Replay(new Result(state, value, solution), model.get(GRB.DoubleAttr.Runtime));
+
+            } catch (final GRBException cause) {
+                throw new RuntimeException(cause);
+            } finally {
+                if (model != null) {
+                    model.dispose();
+                }
+            }
+        }
+
+        private final Semaphore myCopies = new Semaphore(MAX_COPIES);
+        private final AtomicLong myCounter = new AtomicLong();
+        private final Path myDirectory;
+        private final double mySampleRate;
+        private final double mySlowSolveThreshold;
+        private final ExecutorService myWriter;
+
+        /**
+         * @param directory Where to write the bundles
+         * @param sampleRate Fraction [0,1] of all solves to capture regardless of how long they took
+         * @param slowSolveThreshold Capture all solves that took at least this many seconds
+         */
+        public Capture(final Path directory, final double sampleRate, final double slowSolveThreshold) {
+            super();
+            myDirectory = directory;
+            mySampleRate = sampleRate;
+            mySlowSolveThreshold = slowSolveThreshold;
+            myWriter = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(MAX_COPIES), runnable -> {
+                final Thread thread = new Thread(runnable, "ojAlgo-Gurobi-Capture");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        /**
+         * Stop accepting new captures, and wait for the queued ones to be written.
+         */
+        @Override
+        public void close() {
+            myWriter.shutdown();
+            try {
+                while (!myWriter.awaitTermination(1L, TimeUnit.MINUTES)) {
+                    // Keep waiting for the writer to drain the queue
+                }
+            } catch (final InterruptedException cause) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        boolean isCapturing(final double runtime) {
+            return (runtime >= mySlowSolveThreshold) || (ThreadLocalRandom.current().nextDouble() < mySampleRate);
+        }
+
+        /**
+         * @param model Solved model to copy – the copy is disposed of once written
+         * @param start The MIP start actually applied to the solve, or null
+         * @param deferred Rows not (permanently) in the model, to be added to the copy as lazy constraints, or
+         *        null
+         */
+        void capture(final GRBModel model, final double[] start, final DeferredRows deferred) {
+
+            if (!myCopies.tryAcquire()) {
+                return;
+            }
+
+            final GRBModel copy;
+            try {
+                copy = new GRBModel(model);
+            } catch (final GRBException exception) {
+                myCopies.release();
+                exception.printStackTrace();
+                return;
+            }
+
+            final int[] lazy = deferred != null ? deferred.unmodelled() : null;
+
+            final String bundle = myDirectory.resolve("gurobi-" + System.currentTimeMillis() + "-" + myCounter.incrementAndGet()).toString();
+
+            try {
+                myWriter.execute(() -> {
+                    try {
+                        Files.createDirectories(myDirectory);
+                        if (lazy != null) {
+                            final GRBVar[] vars = copy.getVars();
+                            for (final int row : lazy) {
+                                deferred.addTo(copy, vars, row, null, 1);
+                            }
+                            copy.update();
+                        }
+                        copy.write(bundle + ".mps.gz");
+                        copy.write(bundle + ".prm");
+                        if (start != null) {
+                            copy.set(GRB.DoubleAttr.Start, copy.getVars(), start);
+                            copy.update();
+                            copy.write(bundle + ".mst");
+                        }
+                    } catch (final GRBException | IOException exception) {
+                        exception.printStackTrace();
+                    } finally {
+                        copy.dispose();
+                        myCopies.release();
+                    }
+                });
+            } catch (final RejectedExecutionException dropped) {
+                copy.dispose();
+                myCopies.release();
+            }
+        }
+
+    }
+
     @FunctionalInterface
     public interface Configurator {
 
@@ -55,9 +292,176 @@ public final class SolverGurobi implements Optimisation.Solver {
 
     }
 
+    /**
+     * Opt-in infeasibility diagnostics. When a solve ends INFEASIBLE, or INF_OR_UNBD (translated to
+     * {@link State#INVALID}), the model is re-solved with DualReductions=0 to resolve the ambiguity and, if
+     * it turns out to be infeasible, an IIS is computed. Together the two steps are limited by the time
+     * budget. The IIS is mapped back to ojAlgo {@link Expression} and {@link Variable} names, and handed to
+     * the listener. Minimal IIS:s are also cached, keyed by a SHA-256 fingerprint of everything that
+     * determines feasibility, so that repeated failures of a model with the same structure skip both steps.
+     * <p>
+     * Diagnostics are best-effort: should the re-solve or the IIS computation fail, or run out of time, the
+     * solve result is reported as if diagnostics were turned off.
+     */
+    public static final class Diagnostics {
+
+        private static final int DEFAULT_CAPACITY = 64;
+
+        private final Map<String, Infeasibility> myCache;
+        private final Consumer<Infeasibility> myListener;
+        private final double myTimeBudget;
+
+        /**
+         * @param timeBudget Max number of seconds to spend resolving INF_OR_UNBD and computing the IIS
+         * @param listener Receives the (possibly cached) IIS of every infeasible solve
+         */
+        public Diagnostics(final double timeBudget, final Consumer<Infeasibility> listener) {
+            this(timeBudget, listener, DEFAULT_CAPACITY);
+        }
+
+        /**
+         * @param capacity Max number of distinct model structures to cache IIS results for
+         */
+        public Diagnostics(final double timeBudget, final Consumer<Infeasibility> listener, final int capacity) {
+            super();
+            myTimeBudget = timeBudget;
+            myListener = listener;
+            myCache = Collections.synchronizedMap(new LinkedHashMap<String, Infeasibility>(16, 0.75f, true) {
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, Infeasibility> eldest) {
+                    return this.size() > capacity;
+                }
+
+            });
+        }
+
+        Infeasibility getCached(final String structure) {
+            return myCache.get(structure);
+        }
+
+        double getTimeBudget() {
+            return myTimeBudget;
+        }
+
+        /**
+         * Only minimal IIS:s are cached – a later failure with the same structure may have time to find one.
+         */
+        void report(final String structure, final Infeasibility infeasibility) {
+            if (infeasibility.isMinimal()) {
+                myCache.put(structure, infeasibility);
+            }
+            if (myListener != null) {
+                myListener.accept(infeasibility);
+            }
+        }
+
+    }
+
+    /**
+     * Accumulates a SHA-256 digest of model structure.
+     */
+    static final class Fingerprint {
+
+        private final ByteBuffer myBuffer = ByteBuffer.allocate(Long.BYTES);
+        private final MessageDigest myDigest;
+
+        Fingerprint() {
+            super();
+            try {
+                myDigest = MessageDigest.getInstance("SHA-256");
+            } catch (final NoSuchAlgorithmException cause) {
+                throw new IllegalStateException(cause);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return Base64.getEncoder().encodeToString(myDigest.digest());
+        }
+
+        Fingerprint add(final double value) {
+            return this.add(Double.doubleToLongBits(value));
+        }
+
+        Fingerprint add(final long value) {
+            myBuffer.clear();
+            myBuffer.putLong(value);
+            myDigest.update(myBuffer.array());
+            return this;
+        }
+
+        Fingerprint add(final String value) {
+            if (value == null) {
+                return this.add(-1L);
+            }
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            this.add((long) bytes.length);
+            myDigest.update(bytes);
+            return this;
+        }
+
+    }
+
+    /**
+     * An irreducible inconsistent subsystem (IIS) expressed in terms of the ojAlgo model entity names.
+     */
+    public static final class Infeasibility {
+
+        private final List<String> myConstraints;
+        private final List<String> myLowerBounds;
+        private final boolean myMinimal;
+        private final List<String> myUpperBounds;
+
+        Infeasibility(final List<String> constraints, final List<String> lowerBounds, final List<String> upperBounds, final boolean minimal) {
+            super();
+            myConstraints = Collections.unmodifiableList(constraints);
+            myLowerBounds = Collections.unmodifiableList(lowerBounds);
+            myUpperBounds = Collections.unmodifiableList(upperBounds);
+            myMinimal = minimal;
+        }
+
+        /**
+         * @return The names of the {@link Expression}s that are part of the IIS
+         */
+        public List<String> getConstraints() {
+            return myConstraints;
+        }
+
+        /**
+         * @return The names of the {@link Variable}s with their lower limit part of the IIS
+         */
+        public List<String> getLowerBounds() {
+            return myLowerBounds;
+        }
+
+        /**
+         * @return The names of the {@link Variable}s with their upper limit part of the IIS
+         */
+        public List<String> getUpperBounds() {
+            return myUpperBounds;
+        }
+
+        /**
+         * @return false if the time budget ran out before the IIS was reduced to a minimal one
+         */
+        public boolean isMinimal() {
+            return myMinimal;
+        }
+
+        @Override
+        public String toString() {
+            return "IIS [minimal=" + myMinimal + ", constraints=" + myConstraints + ", lowerBounds=" + myLowerBounds + ", upperBounds=" + myUpperBounds + "]";
+        }
+
+    }
+
     public static final class Integration extends ExpressionsBasedModel.Integration<SolverGurobi> implements AutoCloseable {
 
+        private volatile Capture myCapture = null;
+        private volatile Diagnostics myDiagnostics = null;
         private final GRBEnv myEnvironment;
+        private volatile Lazy myLazy = null;
 
         Integration() {
             this(null, null);
@@ -82,7 +486,6 @@ public final class SolverGurobi implements Optimisation.Solver {
         public SolverGurobi build(final ExpressionsBasedModel model) {
             try {
                 final GRBModel delegateSolver = new GRBModel(myEnvironment);
-                final SolverGurobi retVal = new SolverGurobi(delegateSolver, model.options);
 
                 final List<Variable> freeModVars = model.getFreeVariables();
                 final Set<IntIndex> fixedModVars = model.getFixedVariables();
@@ -121,12 +524,31 @@ public final class SolverGurobi implements Optimisation.Solver {
 
                 final GRBVar[] delegateVariables = delegateSolver.getVars();
 
+                final List<Expression> constraints = new ArrayList<>();
+                final List<String> linearRows = new ArrayList<>();
+                final List<String> quadraticRows = new ArrayList<>();
+
+                final Lazy lazy = myLazy;
+                final DeferredRows deferredRows = lazy != null ? new DeferredRows() : null;
+                int eager = 0;
+
                 final List<Expression> tmpCollect = model.constraints().map(e -> e.compensate(fixedModVars)).collect(Collectors.toList());
                 for (final Expression expr : tmpCollect) {
 
+                    if ((lazy != null) && lazy.isDeferred(expr, eager)) {
+                        deferredRows.add(expr, model);
+                        continue;
+                    }
+
                     final GRBExpr solExpr = SolverGurobi.buildExpression(expr, model, delegateVariables);
 
-                    SolverGurobi.setBounds(solExpr, expr, delegateSolver);
+                    SolverGurobi.setBounds(solExpr, expr, delegateSolver, solExpr instanceof GRBQuadExpr ? quadraticRows : linearRows);
+                    constraints.add(expr);
+                    eager++;
+                }
+
+                if (lazy != null) {
+                    lazy.recordDeferred(deferredRows.count());
                 }
 
                 final GRBExpr solObj = SolverGurobi.buildExpression(modObj, model, delegateVariables);
@@ -139,7 +561,8 @@ public final class SolverGurobi implements Optimisation.Solver {
 
                 delegateSolver.update();
 
-                return retVal;
+                return new SolverGurobi(delegateSolver, model.options, freeModVars, constraints, linearRows, quadraticRows, myDiagnostics, myCapture, lazy,
+                        deferredRows);
 
             } catch (final GRBException exception) {
                 exception.printStackTrace();
@@ -150,6 +573,11 @@ public final class SolverGurobi implements Optimisation.Solver {
 
         @Override
         public void close() throws Exception {
+            final Capture capture = myCapture;
+            if (capture != null) {
+                // Queued bundles are written using this environment
+                capture.close();
+            }
             if (myEnvironment != null) {
                 myEnvironment.dispose();
             }
@@ -160,6 +588,30 @@ public final class SolverGurobi implements Optimisation.Solver {
             return true;
         }
 
+        /**
+         * Turn capturing of solves on (or off, with null) for solvers built from now on.
+         */
+        public Integration withCapture(final Capture capture) {
+            myCapture = capture;
+            return this;
+        }
+
+        /**
+         * Turn infeasibility diagnostics on (or off, with null) for solvers built from now on.
+         */
+        public Integration withDiagnostics(final Diagnostics diagnostics) {
+            myDiagnostics = diagnostics;
+            return this;
+        }
+
+        /**
+         * Turn lazy constraint generation on (or off, with null) for solvers built from now on.
+         */
+        public Integration withLazy(final Lazy lazy) {
+            myLazy = lazy;
+            return this;
+        }
+
         @Override
         protected boolean isSolutionMapped() {
             return true;
@@ -170,6 +622,84 @@ public final class SolverGurobi implements Optimisation.Solver {
         }
     }
 
+    /**
+     * Lazy constraint generation for models with a huge number of rows, of which only a few are expected
+     * to be binding. Linear constraints that are marked lazy, or that come after the first threshold rows,
+     * are not added to the Gurobi model. They are kept in a compact primitive store and only added when a
+     * candidate solution violates them – via {@code GRBCallback.addLazy(...)} for MIP:s, and by re-solving
+     * with the violated rows added for continuous models. Any final incumbent is checked against the
+     * deferred rows before it is returned. Quadratic constraints are never deferred.
+     * <p>
+     * Limitations:
+     * <ul>
+     * <li>If the model is unbounded (or infeasible or unbounded) without the deferred rows, all of them are
+     * added and the model re-solved – for such models there is no saving.
+     * <li>The TimeLimit parameter covers all re-solves together. Running out of time with an incumbent that
+     * violates deferred rows gives {@link State#UNEXPLORED} rather than an approximate solution.
+     * <li>Rows added as lazy constraints from the callback only last for one optimisation. Before
+     * {@link Diagnostics} run, all rows found violated are added to the model permanently, so that any IIS
+     * covers them. Rows never found violated are not part of the IIS.
+     * <li>A {@link Capture} writes the rows not in the model as Gurobi lazy constraints, which replays the same
+     * problem but not the same sequence of callbacks.
+     * </ul>
+     */
+    public static final class Lazy {
+
+        private final AtomicLong myDeferred = new AtomicLong();
+        private final Predicate<Expression> myMarker;
+        private final AtomicLong myMaterialised = new AtomicLong();
+        private final int myThreshold;
+
+        /**
+         * @param threshold Number of constraints added to the model as usual – any more are deferred
+         */
+        public Lazy(final int threshold) {
+            this(threshold, expression -> false);
+        }
+
+        /**
+         * @param threshold Number of constraints added to the model as usual – any more are deferred
+         * @param marker Identifies constraints to defer regardless of the threshold
+         */
+        public Lazy(final int threshold, final Predicate<Expression> marker) {
+            super();
+            myThreshold = threshold;
+            myMarker = marker;
+        }
+
+        /**
+         * @return The total number of rows held back from the Gurobi model
+         */
+        public long getDeferred() {
+            return myDeferred.get();
+        }
+
+        /**
+         * @return The total number of held back rows that were found violated, and actually added
+         */
+        public long getMaterialised() {
+            return myMaterialised.get();
+        }
+
+        @Override
+        public String toString() {
+            return "Lazy [deferred=" + myDeferred.get() + ", materialised=" + myMaterialised.get() + "]";
+        }
+
+        boolean isDeferred(final Expression expression, final int eager) {
+            return !expression.isAnyQuadraticFactorNonZero() && ((eager >= myThreshold) || myMarker.test(expression));
+        }
+
+        void recordDeferred(final int count) {
+            myDeferred.addAndGet(count);
+        }
+
+        void recordMaterialised(final int count) {
+            myMaterialised.addAndGet(count);
+        }
+
+    }
+
     public static final SolverGurobi.Integration INTEGRATION = new Integration();
 
     static final Configurator DEFAULT = (environment, model, options) -> {
@@ -232,15 +762,25 @@ public final class SolverGurobi implements Optimisation.Solver {
         return retVal;
     }
 
-    static void setBounds(final GRBExpr solExpr, final Expression modExpr, final GRBModel delegateSolver) {
+    /**
+     * @param rows Receives the name of modExpr once for every row added, so that row indices can be mapped
+     *        back
+     */
+    static void setBounds(final GRBExpr solExpr, final Expression modExpr, final GRBModel delegateSolver, final List<String> rows) {
+        if (solExpr == null) {
+            return;
+        }
         if (modExpr.isEqualityConstraint()) {
             SolverGurobi.addConstraint(delegateSolver, solExpr, GRB.EQUAL, modExpr.getAdjustedLowerLimit(), modExpr.getName());
+            rows.add(modExpr.getName());
         } else {
             if (modExpr.isLowerConstraint()) {
                 SolverGurobi.addConstraint(delegateSolver, solExpr, GRB.GREATER_EQUAL, modExpr.getAdjustedLowerLimit(), modExpr.getName());
+                rows.add(modExpr.getName());
             }
             if (modExpr.isUpperConstraint()) {
                 SolverGurobi.addConstraint(delegateSolver, solExpr, GRB.LESS_EQUAL, modExpr.getAdjustedUpperLimit(), modExpr.getName());
+                rows.add(modExpr.getName());
             }
         }
     }
@@ -273,13 +813,36 @@ public final class SolverGurobi implements Optimisation.Solver {
         }
     }
 
+    private final Capture myCapture;
+    private final List<Expression> myConstraints;
     private final GRBModel myDelegateSolver;
+    private final DeferredRows myDeferredRows;
+    private final Diagnostics myDiagnostics;
+    private final Lazy myLazy;
+    private final List<String> myLinearRows;
     private final Options myOptions;
-
-    SolverGurobi(final GRBModel model, final Options options) {
+    private final List<String> myQuadraticRows;
+    private final List<Variable> myVariables;
+
+    /**
+     * @param constraints The constraints added to the model as built (not deferred)
+     * @param linearRows The names of the linear constraint rows, in model order
+     * @param quadraticRows The names of the quadratic constraint rows, in model order
+     */
+    SolverGurobi(final GRBModel model, final Options options, final List<Variable> variables, final List<Expression> constraints,
+            final List<String> linearRows, final List<String> quadraticRows, final Diagnostics diagnostics, final Capture capture, final Lazy lazy,
+            final DeferredRows deferredRows) {
         super();
         myDelegateSolver = model;
         myOptions = options;
+        myVariables = variables;
+        myConstraints = constraints;
+        myLinearRows = linearRows;
+        myQuadraticRows = quadraticRows;
+        myDiagnostics = diagnostics;
+        myCapture = capture;
+        myLazy = lazy;
+        myDeferredRows = deferredRows;
     }
 
     @Override
@@ -309,9 +872,34 @@ public final class SolverGurobi implements Optimisation.Solver {
 
             myDelegateSolver.getEnv().set(GRB.IntParam.OutputFlag, 0);
 
-            myDelegateSolver.optimize();
+            double[] start = null;
+            if ((myCapture != null) && (kickStarter != null) && kickStarter.getState().isFeasible() && (kickStarter.count() == tmpVars.length)
+                    && (myDelegateSolver.get(GRB.IntAttr.IsMIP) != 0)) {
+                // Only when capturing, so that the .mst written is the start actually used
+                start = kickStarter.toRawCopy1D();
+                myDelegateSolver.set(GRB.DoubleAttr.Start, tmpVars, start);
+            }
+
+            final boolean lazy = (myDeferredRows != null) && (myDeferredRows.count() > 0);
+            final long started = System.nanoTime();
 
-            retState = SolverGurobi.translate(myDelegateSolver.get(GRB.IntAttr.Status));
+            if (lazy) {
+                retState = this.optimiseLazily(tmpVars);
+            } else {
+                myDelegateSolver.optimize();
+                retState = SolverGurobi.translate(myDelegateSolver.get(GRB.IntAttr.Status));
+            }
+
+            if ((myCapture != null) && myCapture.isCapturing((System.nanoTime() - started) / 1E9)) {
+                myCapture.capture(myDelegateSolver, start, lazy ? myDeferredRows : null);
+            }
+
+            if ((myDiagnostics != null) && ((retState == State.INFEASIBLE) || (retState == State.INVALID))) {
+                if (lazy) {
+                    this.modelMaterialised(tmpVars);
+                }
+                retState = this.diagnose(retState);
+            }
 
             if (retState.isFeasible()) {
 
@@ -329,4 +917,230 @@ public final class SolverGurobi implements Optimisation.Solver {
         return new Result(retState, retValue, retSolution);
     }
 
+    private Infeasibility computeIIS() throws GRBException {
+
+        myDelegateSolver.computeIIS();
+
+        final List<String> constraints = new ArrayList<>();
+        final List<String> lowerBounds = new ArrayList<>();
+        final List<String> upperBounds = new ArrayList<>();
+
+        final GRBConstr[] linear = myDelegateSolver.getConstrs();
+        if (linear.length > 0) {
+            final int[] member = myDelegateSolver.get(GRB.IntAttr.IISConstr, linear);
+            for (int i = 0; i < member.length; i++) {
+                if (member[i] != 0) {
+                    constraints.add(myLinearRows.get(i));
+                }
+            }
+        }
+
+        final GRBQConstr[] quadratic = myDelegateSolver.getQConstrs();
+        if (quadratic.length > 0) {
+            final int[] member = myDelegateSolver.get(GRB.IntAttr.IISQConstr, quadratic);
+            for (int i = 0; i < member.length; i++) {
+                if (member[i] != 0) {
+                    constraints.add(myQuadraticRows.get(i));
+                }
+            }
+        }
+
+        final GRBVar[] vars = myDelegateSolver.getVars();
+        if (vars.length > 0) {
+            final int[] lower = myDelegateSolver.get(GRB.IntAttr.IISLB, vars);
+            final int[] upper = myDelegateSolver.get(GRB.IntAttr.IISUB, vars);
+            for (int i = 0; i < vars.length; i++) {
+                if (lower[i] != 0) {
+                    lowerBounds.add(myVariables.get(i).getName());
+                }
+                if (upper[i] != 0) {
+                    upperBounds.add(myVariables.get(i).getName());
+                }
+            }
+        }
+
+        return new Infeasibility(constraints, lowerBounds, upperBounds, myDelegateSolver.get(GRB.IntAttr.IISMinimal) != 0);
+    }
+
+    /**
+     * Best-effort – any failure is logged and the original state returned. The state is only ever replaced
+     * by {@link State#INFEASIBLE}.
+     */
+    State diagnose(final State state) {
+
+        final String structure = this.getStructure();
+
+        final Infeasibility cached = myDiagnostics.getCached(structure);
+        if (cached != null) {
+            // Same structure as a model already proven infeasible – skip both the re-solve and the IIS
+            myDiagnostics.report(structure, cached);
+            return State.INFEASIBLE;
+        }
+
+        State retVal = state;
+
+        final long deadline = System.nanoTime() + (long) (myDiagnostics.getTimeBudget() * 1E9);
+
+        GRBEnv environment = null;
+        double timeLimit = NaN;
+        int dualReductions = -1;
+
+        try {
+
+            environment = myDelegateSolver.getEnv();
+            timeLimit = environment.get(GRB.DoubleParam.TimeLimit);
+            dualReductions = environment.get(GRB.IntParam.DualReductions);
+
+            if (retVal == State.INVALID) {
+                environment.set(GRB.DoubleParam.TimeLimit, Math.min(timeLimit, myDiagnostics.getTimeBudget()));
+                environment.set(GRB.IntParam.DualReductions, 0);
+                myDelegateSolver.optimize();
+                if (myDelegateSolver.get(GRB.IntAttr.Status) == GRB.Status.INFEASIBLE) {
+                    retVal = State.INFEASIBLE;
+                }
+            }
+
+            final double remaining = (deadline - System.nanoTime()) / 1E9;
+
+            if ((retVal == State.INFEASIBLE) && (remaining > ZERO)) {
+                environment.set(GRB.DoubleParam.TimeLimit, Math.min(timeLimit, remaining));
+                myDiagnostics.report(structure, this.computeIIS());
+            }
+
+        } catch (final GRBException exception) {
+            exception.printStackTrace();
+        } finally {
+            if (environment != null) {
+                try {
+                    if (!Double.isNaN(timeLimit)) {
+                        environment.set(GRB.DoubleParam.TimeLimit, timeLimit);
+                    }
+                    if (dualReductions >= 0) {
+                        environment.set(GRB.IntParam.DualReductions, dualReductions);
+                    }
+                } catch (final GRBException exception) {
+                    exception.printStackTrace();
+                }
+            }
+        }
+
+        return retVal;
+    }
+
+    /**
+     * A fingerprint of everything that determines feasibility – variable names, limits and types as well as
+     * the constraint rows (deferred or not). The objective is deliberately left out.
+     */
+    private String getStructure() {
+
+        final Fingerprint retVal = new Fingerprint();
+
+        for (final Variable variable : myVariables) {
+            retVal.add(variable.getName()).add(variable.getUnadjustedLowerLimit()).add(variable.getUnadjustedUpperLimit());
+            retVal.add(variable.isInteger() ? 1L : 0L);
+        }
+
+        retVal.add((long) myConstraints.size());
+        for (final Expression row : myConstraints) {
+            retVal.add(row.getName()).add(row.getAdjustedLowerLimit()).add(row.getAdjustedUpperLimit());
+            retVal.add((long) row.getLinearKeySet().size());
+            for (final IntIndex key : row.getLinearKeySet()) {
+                retVal.add((long) key.index).add(row.getAdjustedLinearFactor(key));
+            }
+            retVal.add((long) row.getQuadraticKeySet().size());
+            for (final IntRowColumn key : row.getQuadraticKeySet()) {
+                retVal.add((long) key.row).add((long) key.column).add(row.getAdjustedQuadraticFactor(key));
+            }
+        }
+
+        if (myDeferredRows != null) {
+            myDeferredRows.fingerprint(retVal);
+        }
+
+        return retVal.toString();
+    }
+
+    /**
+     * Rows added as lazy constraints from the callback are gone after the optimisation. To have them part
+     * of any diagnostics they are added to the model permanently. Best-effort, like the diagnostics.
+     */
+    private void modelMaterialised(final GRBVar[] vars) {
+        try {
+            for (final int row : myDeferredRows.materialisedUnmodelled()) {
+                myDeferredRows.addTo(myDelegateSolver, vars, row, myLinearRows, 0);
+                myDeferredRows.setModelled(row);
+            }
+            myDelegateSolver.update();
+        } catch (final GRBException exception) {
+            exception.printStackTrace();
+        }
+    }
+
+    /**
+     * Optimises, adds the violated deferred rows, and repeats until the incumbent violates none of them.
+     * The time limit applies to all the iterations together.
+     */
+    private State optimiseLazily(final GRBVar[] vars) throws GRBException {
+
+        final int materialised = myDeferredRows.countMaterialised();
+        final GRBEnv environment = myDelegateSolver.getEnv();
+        final double tolerance = environment.get(GRB.DoubleParam.FeasibilityTol);
+        final double timeLimit = environment.get(GRB.DoubleParam.TimeLimit);
+        final long started = System.nanoTime();
+
+        if (myDelegateSolver.get(GRB.IntAttr.IsMIP) != 0) {
+            environment.set(GRB.IntParam.LazyConstraints, 1);
+            myDelegateSolver.setCallback(myDeferredRows.newCallback(vars, tolerance));
+        }
+
+        State retVal = State.UNEXPLORED;
+
+        try {
+
+            myDelegateSolver.optimize();
+
+            for (;;) {
+
+                final int status = myDelegateSolver.get(GRB.IntAttr.Status);
+                retVal = SolverGurobi.translate(status);
+
+                int[] violated;
+                if ((status == GRB.Status.UNBOUNDED) || (status == GRB.Status.INF_OR_UNBD)) {
+                    // Possibly only bounded by the deferred rows – add them all
+                    violated = myDeferredRows.unmodelled();
+                } else if (myDelegateSolver.get(GRB.IntAttr.SolCount) > 0) {
+                    violated = myDeferredRows.separate(myDelegateSolver.get(GRB.DoubleAttr.X, vars), tolerance);
+                } else {
+                    violated = new int[0];
+                }
+
+                if (violated.length == 0) {
+                    break;
+                }
+
+                for (final int row : violated) {
+                    myDeferredRows.addTo(myDelegateSolver, vars, row, myLinearRows, 0);
+                    myDeferredRows.setModelled(row);
+                }
+
+                final double remaining = timeLimit - ((System.nanoTime() - started) / 1E9);
+                if (remaining <= ZERO) {
+                    // Out of time, and the incumbent (if any) violates the rows just added
+                    myDelegateSolver.update();
+                    retVal = State.UNEXPLORED;
+                    break;
+                }
+
+                environment.set(GRB.DoubleParam.TimeLimit, remaining);
+                myDelegateSolver.optimize();
+            }
+
+        } finally {
+            environment.set(GRB.DoubleParam.TimeLimit, timeLimit);
+            myLazy.recordMaterialised(myDeferredRows.countMaterialised() - materialised);
+        }
+
+        return retVal;
+    }
+
 }
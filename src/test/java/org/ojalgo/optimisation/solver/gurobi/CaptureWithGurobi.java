@@ -0,0 +1,97 @@
+/*
+ * Copyright 1997-2021 Optimatika
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.ojalgo.optimisation.solver.gurobi;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.ojalgo.optimisation.Expression;
+import org.ojalgo.optimisation.ExpressionsBasedModel;
+import org.ojalgo.optimisation.Optimisation;
+
+@Disabled
+public class CaptureWithGurobi {
+
+    private static final String MODEL = ".mps.gz";
+
+    @BeforeAll
+    public static void configure() {
+        ExpressionsBasedModel.addPreferredSolver(SolverGurobi.INTEGRATION);
+    }
+
+    static ExpressionsBasedModel newKnapsack() {
+
+        final double[] values = { 10, 13, 7, 8, 12 };
+        final double[] weights = { 5, 6, 3, 4, 6 };
+
+        final ExpressionsBasedModel model = new ExpressionsBasedModel();
+        final Expression capacity = model.addExpression("CAPACITY").upper(14);
+
+        for (int i = 0; i < values.length; i++) {
+            capacity.set(model.addVariable("X" + i).binary().weight(values[i]), weights[i]);
+        }
+
+        return model;
+    }
+
+    @Test
+    public void testCaptureAndReplay(@TempDir final Path directory) throws Exception {
+
+        final SolverGurobi.Capture capture = new SolverGurobi.Capture(directory, 1.0, Double.POSITIVE_INFINITY);
+
+        final Optimisation.Result result;
+        try {
+            SolverGurobi.INTEGRATION.withCapture(capture);
+            result = CaptureWithGurobi.newKnapsack().maximise();
+        } finally {
+            SolverGurobi.INTEGRATION.withCapture(null);
+            capture.close();
+        }
+
+        Assertions.assertTrue(result.getState().isOptimal());
+
+        final List<Path> bundles;
+        try (Stream<Path> files = Files.list(directory)) {
+            bundles = files.filter(file -> file.toString().endsWith(MODEL)).collect(Collectors.toList());
+        }
+        Assertions.assertEquals(1, bundles.size());
+
+        final String model = bundles.get(0).toString();
+        final String bundle = model.substring(0, model.length() - MODEL.length());
+        Assertions.assertTrue(Files.exists(Paths.get(bundle + ".prm")));
+
+        final SolverGurobi.Capture.Replay replay = SolverGurobi.Capture.replay(bundle, null);
+
+        Assertions.assertEquals(Optimisation.State.OPTIMAL, replay.getResult().getState());
+        Assertions.assertEquals(result.getValue(), replay.getResult().getValue(), 1E-6);
+    }
+
+}
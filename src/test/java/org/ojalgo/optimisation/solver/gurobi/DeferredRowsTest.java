@@ -0,0 +1,159 @@
+/*
+ * Copyright 1997-2021 Optimatika
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.ojalgo.optimisation.solver.gurobi;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.ojalgo.optimisation.Expression;
+import org.ojalgo.optimisation.ExpressionsBasedModel;
+import org.ojalgo.optimisation.Variable;
+
+public class DeferredRowsTest {
+
+    private static final double TOLERANCE = 1E-6;
+
+    @Test
+    public void testEqualityRow() {
+
+        final ExpressionsBasedModel model = new ExpressionsBasedModel();
+        final Variable x = model.addVariable("X");
+        final Variable y = model.addVariable("Y");
+
+        final DeferredRows rows = new DeferredRows();
+        rows.add(model.addExpression("EQ").set(x, 1).set(y, -1).level(0), model);
+
+        Assertions.assertEquals(0, rows.separate(new double[] { 1.0, 1.0 }, TOLERANCE).length);
+        Assertions.assertEquals(0, rows.separate(new double[] { 1.0, 1.0 + (TOLERANCE / 2.0) }, TOLERANCE).length);
+        Assertions.assertArrayEquals(new int[] { 0 }, rows.separate(new double[] { 1.0, 1.0 + (TOLERANCE * 2.0) }, TOLERANCE));
+        Assertions.assertArrayEquals(new int[] { 0 }, rows.separate(new double[] { 1.0 + (TOLERANCE * 2.0), 1.0 }, TOLERANCE));
+    }
+
+    @Test
+    public void testGrowth() {
+
+        final int numberOfVariables = 10;
+        final int numberOfRows = 100;
+
+        final ExpressionsBasedModel model = new ExpressionsBasedModel();
+        final Variable[] vars = new Variable[numberOfVariables];
+        for (int j = 0; j < numberOfVariables; j++) {
+            vars[j] = model.addVariable("X" + j);
+        }
+
+        // Row i: sum of all variables >= i
+        final DeferredRows rows = new DeferredRows();
+        for (int i = 0; i < numberOfRows; i++) {
+            final Expression expression = model.addExpression("R" + i).lower(i);
+            for (int j = 0; j < numberOfVariables; j++) {
+                expression.set(vars[j], 1);
+            }
+            rows.add(expression, model);
+        }
+
+        Assertions.assertEquals(numberOfRows, rows.count());
+
+        // All variables 5.0 sums to 50.0 – rows 51 to 99 are violated
+        final double[] solution = new double[numberOfVariables];
+        Arrays.fill(solution, 5.0);
+
+        final int[] violated = rows.separate(solution, TOLERANCE);
+        Assertions.assertEquals(numberOfRows - 51, violated.length);
+        for (int k = 0; k < violated.length; k++) {
+            Assertions.assertEquals(51 + k, violated[k]);
+        }
+    }
+
+    @Test
+    public void testIsDeferred() {
+
+        final ExpressionsBasedModel model = new ExpressionsBasedModel();
+        final Variable x = model.addVariable("X");
+
+        final Expression linear = model.addExpression("LINEAR").set(x, 1).upper(1);
+        final Expression marked = model.addExpression("MARKED").set(x, 1).upper(1);
+        final Expression quadratic = model.addExpression("QUADRATIC").set(x, x, 1).upper(1);
+
+        final SolverGurobi.Lazy lazy = new SolverGurobi.Lazy(2, expression -> "MARKED".equals(expression.getName()));
+
+        Assertions.assertFalse(lazy.isDeferred(linear, 1));
+        Assertions.assertTrue(lazy.isDeferred(linear, 2));
+
+        Assertions.assertTrue(lazy.isDeferred(marked, 0));
+
+        Assertions.assertFalse(lazy.isDeferred(quadratic, 0));
+        Assertions.assertFalse(lazy.isDeferred(quadratic, 2));
+    }
+
+    @Test
+    public void testModelledAndMaterialised() {
+
+        final ExpressionsBasedModel model = new ExpressionsBasedModel();
+        final Variable x = model.addVariable("X");
+
+        final DeferredRows rows = new DeferredRows();
+        rows.add(model.addExpression("A").set(x, 1).upper(1), model);
+        rows.add(model.addExpression("B").set(x, 1).upper(2), model);
+        rows.add(model.addExpression("C").set(x, 1).upper(3), model);
+
+        final double[] solution = new double[] { 2.5 };
+
+        // Not modelled rows (added from a callback) are separated again, but only counted once
+        Assertions.assertArrayEquals(new int[] { 0, 1 }, rows.separate(solution, TOLERANCE));
+        Assertions.assertArrayEquals(new int[] { 0, 1 }, rows.separate(solution, TOLERANCE));
+        Assertions.assertEquals(2, rows.countMaterialised());
+
+        rows.setModelled(0);
+        Assertions.assertArrayEquals(new int[] { 1 }, rows.separate(solution, TOLERANCE));
+        Assertions.assertEquals(2, rows.countMaterialised());
+
+        // Violated once (from a callback) but not in the model – to be modelled before diagnostics
+        Assertions.assertArrayEquals(new int[] { 1 }, rows.materialisedUnmodelled());
+
+        // Listing rows does not materialise them, modelling them does
+        Assertions.assertArrayEquals(new int[] { 1, 2 }, rows.unmodelled());
+        Assertions.assertEquals(2, rows.countMaterialised());
+        rows.setModelled(2);
+        Assertions.assertEquals(3, rows.countMaterialised());
+
+        Assertions.assertEquals("A", rows.getName(0));
+        Assertions.assertEquals("C", rows.getName(2));
+    }
+
+    @Test
+    public void testRangedRow() {
+
+        final ExpressionsBasedModel model = new ExpressionsBasedModel();
+        final Variable x = model.addVariable("X");
+        final Variable y = model.addVariable("Y");
+
+        final DeferredRows rows = new DeferredRows();
+        rows.add(model.addExpression("RANGE").set(x, 1).set(y, 1).lower(1).upper(2), model);
+
+        Assertions.assertArrayEquals(new int[] { 0 }, rows.separate(new double[] { 0.0, 0.0 }, TOLERANCE));
+        Assertions.assertEquals(0, rows.separate(new double[] { 1.0, 0.5 }, TOLERANCE).length);
+        Assertions.assertEquals(0, rows.separate(new double[] { 1.0, 1.0 + (TOLERANCE / 2.0) }, TOLERANCE).length);
+        Assertions.assertArrayEquals(new int[] { 0 }, rows.separate(new double[] { 2.0, 1.0 }, TOLERANCE));
+    }
+
+}
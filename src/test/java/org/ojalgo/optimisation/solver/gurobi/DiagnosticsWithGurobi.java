@@ -0,0 +1,144 @@
+/*
+ * Copyright 1997-2021 Optimatika
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.ojalgo.optimisation.solver.gurobi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import org.ojalgo.optimisation.ExpressionsBasedModel;
+import org.ojalgo.optimisation.Optimisation;
+import org.ojalgo.optimisation.Variable;
+
+@Disabled
+public class DiagnosticsWithGurobi {
+
+    private static final List<SolverGurobi.Infeasibility> REPORTED = new ArrayList<>();
+
+    @BeforeAll
+    public static void configure() {
+        ExpressionsBasedModel.addPreferredSolver(SolverGurobi.INTEGRATION.withDiagnostics(new SolverGurobi.Diagnostics(10.0, REPORTED::add)));
+    }
+
+    @AfterAll
+    public static void reset() {
+        SolverGurobi.INTEGRATION.withDiagnostics(null);
+    }
+
+    /**
+     * Rows 1 and 2 (together with the lower limit of Y) are inconsistent, row 3 is not part of the conflict.
+     */
+    static ExpressionsBasedModel newInfeasibleModel(final String prefix) {
+
+        final ExpressionsBasedModel model = new ExpressionsBasedModel();
+
+        final Variable x = model.addVariable("X").lower(0).weight(1);
+        final Variable y = model.addVariable("Y").lower(0).weight(1);
+
+        model.addExpression(prefix + "1").set(x, 1).set(y, 1).lower(10);
+        model.addExpression(prefix + "2").set(x, 1).set(y, 2).upper(8);
+        model.addExpression(prefix + "3").set(x, 1).set(y, -1).upper(5);
+
+        return model;
+    }
+
+    /**
+     * Feasible, but unbounded (when minimised)
+     */
+    static ExpressionsBasedModel newUnboundedModel() {
+
+        final ExpressionsBasedModel model = new ExpressionsBasedModel();
+
+        final Variable x = model.addVariable("X").lower(0).weight(-1);
+        final Variable y = model.addVariable("Y").lower(0).weight(-1);
+
+        model.addExpression("U").set(x, 1).set(y, -1).upper(5);
+
+        return model;
+    }
+
+    @Test
+    public void testIISMappedToNamesAndCached() {
+
+        REPORTED.clear();
+
+        final Optimisation.Result first = DiagnosticsWithGurobi.newInfeasibleModel("C").minimise();
+        Assertions.assertEquals(Optimisation.State.INFEASIBLE, first.getState());
+        Assertions.assertEquals(1, REPORTED.size());
+
+        final SolverGurobi.Infeasibility iis = REPORTED.get(0);
+        Assertions.assertTrue(iis.getConstraints().contains("C1"));
+        Assertions.assertTrue(iis.getConstraints().contains("C2"));
+        Assertions.assertFalse(iis.getConstraints().contains("C3"));
+        Assertions.assertTrue(iis.getLowerBounds().contains("Y"));
+        Assertions.assertTrue(iis.getUpperBounds().isEmpty());
+
+        // A new model with the same structure is answered from the cache
+        final Optimisation.Result second = DiagnosticsWithGurobi.newInfeasibleModel("C").minimise();
+        Assertions.assertEquals(Optimisation.State.INFEASIBLE, second.getState());
+        Assertions.assertEquals(2, REPORTED.size());
+        Assertions.assertSame(iis, REPORTED.get(1));
+    }
+
+    /**
+     * An INF_OR_UNBD (INVALID) infeasible model is resolved, and diagnosed, as INFEASIBLE
+     */
+    @Test
+    public void testInvalidInfeasible() {
+
+        REPORTED.clear();
+
+        final SolverGurobi solver = SolverGurobi.INTEGRATION.build(DiagnosticsWithGurobi.newInfeasibleModel("I"));
+        try {
+            Assertions.assertEquals(Optimisation.State.INFEASIBLE, solver.diagnose(Optimisation.State.INVALID));
+        } finally {
+            solver.dispose();
+        }
+
+        Assertions.assertEquals(1, REPORTED.size());
+        Assertions.assertTrue(REPORTED.get(0).getConstraints().contains("I1"));
+        Assertions.assertTrue(REPORTED.get(0).getConstraints().contains("I2"));
+    }
+
+    /**
+     * An INF_OR_UNBD (INVALID) unbounded model stays INVALID – there is no solution to return
+     */
+    @Test
+    public void testInvalidUnbounded() {
+
+        REPORTED.clear();
+
+        final SolverGurobi solver = SolverGurobi.INTEGRATION.build(DiagnosticsWithGurobi.newUnboundedModel());
+        try {
+            Assertions.assertEquals(Optimisation.State.INVALID, solver.diagnose(Optimisation.State.INVALID));
+        } finally {
+            solver.dispose();
+        }
+
+        Assertions.assertTrue(REPORTED.isEmpty());
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 1997-2021 Optimatika
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.ojalgo.optimisation.solver.gurobi;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import org.ojalgo.optimisation.Expression;
+import org.ojalgo.optimisation.ExpressionsBasedModel;
+import org.ojalgo.optimisation.Optimisation;
+import org.ojalgo.optimisation.Variable;
+
+import gurobi.GRB;
+import gurobi.GRBException;
+
+@Disabled
+public class LazyWithGurobi {
+
+    private static final double PRECISION = 1E-6;
+
+    @BeforeAll
+    public static void configure() {
+        ExpressionsBasedModel.addPreferredSolver(SolverGurobi.INTEGRATION);
+    }
+
+    /**
+     * Maximise the sum of the variables subject to many random capacity rows – only a few of them binding.
+     */
+    static ExpressionsBasedModel newCapacityModel(final int numberOfVariables, final int numberOfRows, final boolean integer) {
+
+        final Random random = new Random(123L);
+
+        final ExpressionsBasedModel model = new ExpressionsBasedModel();
+
+        final Variable[] vars = new Variable[numberOfVariables];
+        for (int j = 0; j < numberOfVariables; j++) {
+            vars[j] = model.addVariable("X" + j).lower(0).upper(10).weight(1 + random.nextInt(10));
+            if (integer) {
+                vars[j].integer(true);
+            }
+        }
+
+        for (int i = 0; i < numberOfRows; i++) {
+            final Expression row = model.addExpression("R" + i).upper(50 + random.nextInt(50));
+            for (int j = 0; j < numberOfVariables; j++) {
+                if (random.nextInt(4) == 0) {
+                    row.set(vars[j], 1 + random.nextInt(9));
+                }
+            }
+        }
+
+        return model;
+    }
+
+    static Optimisation.Result maximise(final ExpressionsBasedModel model, final SolverGurobi.Lazy lazy) {
+        SolverGurobi.INTEGRATION.withLazy(lazy);
+        try {
+            return model.maximise();
+        } finally {
+            SolverGurobi.INTEGRATION.withLazy(null);
+        }
+    }
+
+    /**
+     * LP re-solve loop: same optimum as with all rows in the model, with fewer rows materialised.
+     */
+    @Test
+    public void testContinuous() {
+
+        final Optimisation.Result eager = LazyWithGurobi.maximise(LazyWithGurobi.newCapacityModel(20, 200, false), null);
+
+        final SolverGurobi.Lazy lazy = new SolverGurobi.Lazy(0);
+        final ExpressionsBasedModel model = LazyWithGurobi.newCapacityModel(20, 200, false);
+        final Optimisation.Result result = LazyWithGurobi.maximise(model, lazy);
+
+        Assertions.assertTrue(result.getState().isOptimal());
+        Assertions.assertEquals(eager.getValue(), result.getValue(), PRECISION);
+        Assertions.assertTrue(model.validate(result));
+        Assertions.assertTrue(lazy.getMaterialised() < lazy.getDeferred());
+    }
+
+    /**
+     * MIP callback: same optimum as with all rows in the model.
+     */
+    @Test
+    public void testInteger() {
+
+        final Optimisation.Result eager = LazyWithGurobi.maximise(LazyWithGurobi.newCapacityModel(20, 200, true), null);
+
+        final SolverGurobi.Lazy lazy = new SolverGurobi.Lazy(0);
+        final ExpressionsBasedModel model = LazyWithGurobi.newCapacityModel(20, 200, true);
+        final Optimisation.Result result = LazyWithGurobi.maximise(model, lazy);
+
+        Assertions.assertTrue(result.getState().isOptimal());
+        Assertions.assertEquals(eager.getValue(), result.getValue(), PRECISION);
+        Assertions.assertTrue(model.validate(result));
+    }
+
+    /**
+     * Running out of time must never return a solution that violates deferred rows.
+     */
+    @Test
+    public void testTimeLimit() {
+
+        final ExpressionsBasedModel model = LazyWithGurobi.newCapacityModel(200, 2000, true);
+        model.options.setConfigurator((SolverGurobi.Configurator) (environment, delegate, options) -> {
+            try {
+                delegate.getEnv().set(GRB.DoubleParam.TimeLimit, 0.01);
+            } catch (final GRBException cause) {
+                throw new RuntimeException(cause);
+            }
+        });
+
+        final Optimisation.Result result = LazyWithGurobi.maximise(model, new SolverGurobi.Lazy(0));
+
+        Assertions.assertTrue(!result.getState().isFeasible() || model.validate(result));
+    }
+
+    /**
+     * Without the deferred row the model is unbounded – all rows are added and the model re-solved.
+     */
+    @Test
+    public void testUnboundedWithoutDeferredRows() {
+
+        final ExpressionsBasedModel model = new ExpressionsBasedModel();
+        final Variable x = model.addVariable("X").lower(0).weight(1);
+        final Variable y = model.addVariable("Y").lower(0).weight(1);
+        model.addExpression("C").set(x, 1).set(y, 1).upper(10);
+
+        final SolverGurobi.Lazy lazy = new SolverGurobi.Lazy(0);
+        final Optimisation.Result result = LazyWithGurobi.maximise(model, lazy);
+
+        Assertions.assertTrue(result.getState().isOptimal());
+        Assertions.assertEquals(10.0, result.getValue(), PRECISION);
+        Assertions.assertEquals(1L, lazy.getDeferred());
+        Assertions.assertEquals(1L, lazy.getMaterialised());
+    }
+
+}